@@ -13,6 +13,7 @@ public class GPSLocationListener implements LocationListener {
     
     private static final String TAG = "GPSLocationListener";
     private OnLocationChangeListener locationChangeListener;
+    private GPSTileAggregator tileAggregator;
     
     public interface OnLocationChangeListener {
         /**
@@ -50,8 +51,35 @@ public class GPSLocationListener implements LocationListener {
         this.locationChangeListener = listener;
     }
     
+    /**
+     * 构造函数
+     * @param listener 位置变化监听器
+     * @param aggregator 实时定位点的瓦片聚合器
+     */
+    public GPSLocationListener(OnLocationChangeListener listener, GPSTileAggregator aggregator) {
+        this.locationChangeListener = listener;
+        this.tileAggregator = aggregator;
+    }
+    
     @Override
     public void onLocationChanged(Location location) {
+        if (location != null && tileAggregator != null) {
+            if (!tileAggregator.addFix(location.getLatitude(), location.getLongitude())) {
+                Log.w(TAG, "丢弃无效坐标: " + location.getLatitude() + ", " + location.getLongitude());
+            }
+        }
+        notifyLocation(location);
+    }
+    
+    /**
+     * 分发最后已知位置,该位置已在之前的会话中统计过,不再累加到瓦片聚合器
+     * @param location 最后已知位置
+     */
+    public void onLastKnownLocation(Location location) {
+        notifyLocation(location);
+    }
+    
+    private void notifyLocation(Location location) {
         if (location != null) {
             double latitude = location.getLatitude();
             double longitude = location.getLongitude();
@@ -25,6 +25,7 @@ public class GPSManager {
     private Context context;
     private LocationManager locationManager;
     private GPSLocationListener gpsLocationListener;
+    private GPSTileStore tileStore;
     private boolean isGPSEnabled = false;
     
     /**
@@ -35,7 +36,8 @@ public class GPSManager {
     public GPSManager(Context context, GPSLocationListener.OnLocationChangeListener listener) {
         this.context = context;
         this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
-        this.gpsLocationListener = new GPSLocationListener(listener);
+        this.tileStore = GPSTileStore.getInstance(context);
+        this.gpsLocationListener = new GPSLocationListener(listener, tileStore.getAggregator());
     }
     
     /**
@@ -114,7 +116,7 @@ public class GPSManager {
                     LocationManager.GPS_PROVIDER);
                 if (lastLocation != null) {
                     Log.d(TAG, "获取到最后位置: " + lastLocation.getLatitude() + ", " + lastLocation.getLongitude());
-                    gpsLocationListener.onLocationChanged(lastLocation);
+                    gpsLocationListener.onLastKnownLocation(lastLocation);
                 } else {
                     Log.d(TAG, "没有最后已知位置,等待实时更新...");
                 }
@@ -136,7 +138,7 @@ public class GPSManager {
                     LocationManager.NETWORK_PROVIDER);
                 if (lastLocation != null) {
                     Log.d(TAG, "获取到最后网络位置: " + lastLocation.getLatitude() + ", " + lastLocation.getLongitude());
-                    gpsLocationListener.onLocationChanged(lastLocation);
+                    gpsLocationListener.onLastKnownLocation(lastLocation);
                 } else {
                     Log.d(TAG, "没有最后已知网络位置,等待实时更新...");
                 }
@@ -164,6 +166,7 @@ public class GPSManager {
                 locationManager.removeUpdates(gpsLocationListener);
                 isGPSEnabled = false;
                 Log.d(TAG, "GPS定位已停止");
+                tileStore.save();
             } catch (Exception e) {
                 Log.e(TAG, "停止GPS失败: " + e.getMessage());
             }
@@ -210,6 +213,14 @@ public class GPSManager {
         // 重新启动时会使用新参数
     }
     
+    /**
+     * 获取定位点瓦片聚合器,用于覆盖/密度查询和热力图渲染
+     * @return 应用范围内共享的聚合器
+     */
+    public GPSTileAggregator getTileAggregator() {
+        return tileStore.getAggregator();
+    }
+    
     /**
      * 判断GPS是否正在运行
      * @return true表示正在运行,false表示未运行
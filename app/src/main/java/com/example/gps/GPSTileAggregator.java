@@ -0,0 +1,663 @@
+package com.example.gps;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 定位点瓦片聚合器
+ * 将定位点增量累加到多级Web墨卡托瓦片网格中,用于密度/覆盖查询和热力图渲染,
+ * 无需重放历史轨迹。瓦片先以稀疏数组存储,变稠密后才转为完整计数数组,
+ * 内存只与被触及的格子数量有关。单个格子计数在Integer.MAX_VALUE处饱和。
+ */
+public class GPSTileAggregator {
+
+    // Web墨卡托可表示的最大纬度
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    // 支持的最大缩放级别(瓦片坐标需放入29位)
+    public static final int MAX_ZOOM = 22;
+
+    // 默认缩放级别范围,14级32x32格子约为赤道处76米
+    public static final int DEFAULT_MIN_ZOOM = 0;
+    public static final int DEFAULT_MAX_ZOOM = 14;
+
+    // 每块瓦片边长方向的格子数位数,默认32x32
+    public static final int DEFAULT_BIN_BITS = 5;
+
+    // 赤道周长(米)
+    private static final double EARTH_CIRCUMFERENCE = 2 * Math.PI * 6378137.0;
+
+    // 序列化文件头
+    private static final int MAGIC = 0x47505354;
+    private static final int VERSION = 1;
+
+    private final int minZoom;
+    private final int maxZoom;
+    private final int binBits;
+    private final int binsPerSide;
+
+    // 瓦片键 -> 瓦片计数
+    private final Map<Long, Tile> tiles = new HashMap<>();
+
+    private long totalFixes = 0;
+
+    /**
+     * 单块瓦片的计数数据
+     * 稀疏模式下bins按升序存放格子下标,counts存放对应计数;
+     * 稠密模式下bins为null,counts按格子下标存放
+     */
+    private static final class Tile {
+        final int binCount;
+        int[] bins;
+        int[] counts;
+        long total;
+        int nonEmptyBins;
+        int maxBin;
+
+        Tile(int binCount) {
+            this.binCount = binCount;
+            this.bins = new int[4];
+            this.counts = new int[4];
+        }
+
+        Tile(Tile other) {
+            this.binCount = other.binCount;
+            this.bins = other.bins != null ? other.bins.clone() : null;
+            this.counts = other.counts.clone();
+            this.total = other.total;
+            this.nonEmptyBins = other.nonEmptyBins;
+            this.maxBin = other.maxBin;
+        }
+
+        int get(int bin) {
+            if (bins == null) {
+                return counts[bin];
+            }
+            int i = Arrays.binarySearch(bins, 0, nonEmptyBins, bin);
+            return i >= 0 ? counts[i] : 0;
+        }
+
+        /**
+         * 累加计数,amount必须为正数
+         */
+        void add(int bin, int amount) {
+            int old;
+            int value;
+            if (bins == null) {
+                old = counts[bin];
+                value = saturatedAdd(old, amount);
+                counts[bin] = value;
+            } else {
+                int i = Arrays.binarySearch(bins, 0, nonEmptyBins, bin);
+                if (i >= 0) {
+                    old = counts[i];
+                    value = saturatedAdd(old, amount);
+                    counts[i] = value;
+                } else {
+                    old = 0;
+                    value = amount;
+                    insert(-i - 1, bin, value);
+                }
+            }
+            total += amount;
+            if (old == 0) {
+                nonEmptyBins++;
+            }
+            if (value > maxBin) {
+                maxBin = value;
+            }
+        }
+
+        private void insert(int pos, int bin, int value) {
+            int size = nonEmptyBins;
+            if (size == bins.length) {
+                // 稀疏条目占8字节,扩容后会超过稠密数组的大小时直接转为稠密
+                if (size * 4 >= binCount) {
+                    toDense();
+                    counts[bin] = value;
+                    return;
+                }
+                bins = Arrays.copyOf(bins, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(bins, pos, bins, pos + 1, size - pos);
+            System.arraycopy(counts, pos, counts, pos + 1, size - pos);
+            bins[pos] = bin;
+            counts[pos] = value;
+        }
+
+        private void toDense() {
+            int[] dense = new int[binCount];
+            for (int i = 0; i < nonEmptyBins; i++) {
+                dense[bins[i]] = counts[i];
+            }
+            bins = null;
+            counts = dense;
+        }
+
+        /**
+         * 按格子下标升序取出所有非空格子
+         */
+        void entries(int[] outBins, int[] outCounts) {
+            if (bins != null) {
+                System.arraycopy(bins, 0, outBins, 0, nonEmptyBins);
+                System.arraycopy(counts, 0, outCounts, 0, nonEmptyBins);
+                return;
+            }
+            int n = 0;
+            for (int i = 0; i < binCount; i++) {
+                if (counts[i] != 0) {
+                    outBins[n] = i;
+                    outCounts[n] = counts[i];
+                    n++;
+                }
+            }
+        }
+
+        int[] toArray() {
+            if (bins == null) {
+                return counts.clone();
+            }
+            int[] dense = new int[binCount];
+            for (int i = 0; i < nonEmptyBins; i++) {
+                dense[bins[i]] = counts[i];
+            }
+            return dense;
+        }
+    }
+
+    /**
+     * 构造函数,使用默认缩放级别和格子精度
+     */
+    public GPSTileAggregator() {
+        this(DEFAULT_MIN_ZOOM, DEFAULT_MAX_ZOOM, DEFAULT_BIN_BITS);
+    }
+
+    /**
+     * 构造函数,使用默认格子精度
+     * @param minZoom 最小缩放级别
+     * @param maxZoom 最大缩放级别
+     */
+    public GPSTileAggregator(int minZoom, int maxZoom) {
+        this(minZoom, maxZoom, DEFAULT_BIN_BITS);
+    }
+
+    /**
+     * 构造函数
+     * @param minZoom 最小缩放级别
+     * @param maxZoom 最大缩放级别
+     * @param binBits 每块瓦片边长方向格子数的位数(0-8)
+     */
+    public GPSTileAggregator(int minZoom, int maxZoom, int binBits) {
+        if (minZoom < 0 || maxZoom > MAX_ZOOM || minZoom > maxZoom) {
+            throw new IllegalArgumentException("缩放级别无效: " + minZoom + " - " + maxZoom);
+        }
+        if (binBits < 0 || binBits > 8) {
+            throw new IllegalArgumentException("格子精度无效: " + binBits);
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.binBits = binBits;
+        this.binsPerSide = 1 << binBits;
+    }
+
+    /**
+     * 经度转换为指定级别下的全局格子X坐标
+     * @param longitude 经度
+     * @param zoom 缩放级别
+     * @param binBits 格子精度位数
+     * @return 全局格子X坐标
+     */
+    public static long longitudeToBinX(double longitude, int zoom, int binBits) {
+        long size = 1L << (zoom + binBits);
+        long x = (long) Math.floor((longitude + 180.0) / 360.0 * size);
+        return clamp(x, size);
+    }
+
+    /**
+     * 纬度转换为指定级别下的全局格子Y坐标(向南递增)
+     * @param latitude 纬度
+     * @param zoom 缩放级别
+     * @param binBits 格子精度位数
+     * @return 全局格子Y坐标
+     */
+    public static long latitudeToBinY(double latitude, int zoom, int binBits) {
+        long size = 1L << (zoom + binBits);
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sin = Math.sin(Math.toRadians(lat));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        return clamp((long) Math.floor(y * size), size);
+    }
+
+    /**
+     * 经度转换为瓦片X坐标
+     */
+    public static int longitudeToTileX(double longitude, int zoom) {
+        return (int) longitudeToBinX(longitude, zoom, 0);
+    }
+
+    /**
+     * 纬度转换为瓦片Y坐标
+     */
+    public static int latitudeToTileY(double latitude, int zoom) {
+        return (int) latitudeToBinY(latitude, zoom, 0);
+    }
+
+    /**
+     * 瓦片X坐标转换为瓦片西边界经度
+     */
+    public static double tileXToLongitude(int x, int zoom) {
+        return x / (double) (1L << zoom) * 360.0 - 180.0;
+    }
+
+    /**
+     * 瓦片Y坐标转换为瓦片北边界纬度
+     */
+    public static double tileYToLatitude(int y, int zoom) {
+        return mercatorYToLatitude(y / (double) (1L << zoom));
+    }
+
+    private static double mercatorYToLatitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI - 2.0 * Math.PI * y)));
+    }
+
+    private static long clamp(long value, long size) {
+        if (value < 0) {
+            return 0;
+        }
+        return value >= size ? size - 1 : value;
+    }
+
+    /**
+     * 判断经纬度是否为有效坐标,无穷大、NaN或超出±90/±180的值均无效
+     */
+    public static boolean isValidCoordinate(double latitude, double longitude) {
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long sum = (long) a + b;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    private static long tileKey(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    private static boolean isValidTile(int zoom, int x, int y) {
+        int size = 1 << zoom;
+        return x >= 0 && y >= 0 && x < size && y < size;
+    }
+
+    private void checkZoom(int zoom) {
+        if (zoom < minZoom || zoom > maxZoom) {
+            throw new IllegalArgumentException("缩放级别超出范围: " + zoom);
+        }
+    }
+
+    /**
+     * 查找瓦片,坐标超出该级别范围时返回null
+     */
+    private Tile findTile(int zoom, int x, int y) {
+        checkZoom(zoom);
+        if (!isValidTile(zoom, x, y)) {
+            return null;
+        }
+        return tiles.get(tileKey(zoom, x, y));
+    }
+
+    /**
+     * 累加一个定位点到所有缩放级别,无效坐标会被丢弃
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @return true表示已累加,false表示坐标无效
+     */
+    public synchronized boolean addFix(double latitude, double longitude) {
+        if (!isValidCoordinate(latitude, longitude)) {
+            return false;
+        }
+        long binX = longitudeToBinX(longitude, maxZoom, binBits);
+        long binY = latitudeToBinY(latitude, maxZoom, binBits);
+        int mask = binsPerSide - 1;
+        // 高级别坐标右移即可得到低级别坐标,只需做一次投影
+        for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+            int shift = maxZoom - zoom;
+            long x = binX >> shift;
+            long y = binY >> shift;
+            Tile tile = getOrCreateTile(tileKey(zoom, (int) (x >> binBits), (int) (y >> binBits)));
+            tile.add((int) (y & mask) * binsPerSide + (int) (x & mask), 1);
+        }
+        totalFixes++;
+        return true;
+    }
+
+    private Tile getOrCreateTile(long key) {
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(binsPerSide * binsPerSide);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * 合并另一个聚合器的部分结果,两者的级别和格子精度必须一致
+     * @param other 另一个聚合器
+     */
+    public void merge(GPSTileAggregator other) {
+        if (other == this) {
+            throw new IllegalArgumentException("不能与自身合并");
+        }
+        if (other.minZoom != minZoom || other.maxZoom != maxZoom || other.binBits != binBits) {
+            throw new IllegalArgumentException("聚合器配置不一致,无法合并");
+        }
+        // 先在对方锁内复制快照,避免同时持有两把锁
+        Map<Long, Tile> snapshot = new HashMap<>();
+        long otherFixes;
+        synchronized (other) {
+            for (Map.Entry<Long, Tile> entry : other.tiles.entrySet()) {
+                snapshot.put(entry.getKey(), new Tile(entry.getValue()));
+            }
+            otherFixes = other.totalFixes;
+        }
+        synchronized (this) {
+            int[] bins = new int[binsPerSide * binsPerSide];
+            int[] counts = new int[binsPerSide * binsPerSide];
+            for (Map.Entry<Long, Tile> entry : snapshot.entrySet()) {
+                Tile source = entry.getValue();
+                source.entries(bins, counts);
+                Tile tile = getOrCreateTile(entry.getKey());
+                for (int i = 0; i < source.nonEmptyBins; i++) {
+                    tile.add(bins[i], counts[i]);
+                }
+            }
+            totalFixes += otherFixes;
+        }
+    }
+
+    /**
+     * 清空所有计数
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        totalFixes = 0;
+    }
+
+    /**
+     * 获取累加的定位点总数
+     */
+    public synchronized long getTotalFixes() {
+        return totalFixes;
+    }
+
+    /**
+     * 获取被触及的瓦片数量(所有级别)
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * 获取每块瓦片边长方向的格子数
+     */
+    public int getBinsPerSide() {
+        return binsPerSide;
+    }
+
+    /**
+     * 获取瓦片内的定位点数量
+     * @param zoom 缩放级别
+     * @param x 瓦片X坐标
+     * @param y 瓦片Y坐标
+     * @return 定位点数量,坐标超出范围时返回0
+     */
+    public synchronized long getTileFixes(int zoom, int x, int y) {
+        Tile tile = findTile(zoom, x, y);
+        return tile != null ? tile.total : 0;
+    }
+
+    /**
+     * 获取某位置所在格子的定位点数量
+     * @param zoom 缩放级别
+     * @param latitude 纬度
+     * @param longitude 经度
+     * @return 定位点数量,坐标无效时返回0
+     */
+    public synchronized int getDensity(int zoom, double latitude, double longitude) {
+        checkZoom(zoom);
+        if (!isValidCoordinate(latitude, longitude)) {
+            return 0;
+        }
+        long binX = longitudeToBinX(longitude, zoom, binBits);
+        long binY = latitudeToBinY(latitude, zoom, binBits);
+        Tile tile = tiles.get(tileKey(zoom, (int) (binX >> binBits), (int) (binY >> binBits)));
+        if (tile == null) {
+            return 0;
+        }
+        int mask = binsPerSide - 1;
+        return tile.get((int) (binY & mask) * binsPerSide + (int) (binX & mask));
+    }
+
+    /**
+     * 获取瓦片的覆盖率,即有定位点的格子所占比例
+     * @param zoom 缩放级别
+     * @param x 瓦片X坐标
+     * @param y 瓦片Y坐标
+     * @return 覆盖率(0-1),坐标超出范围时返回0
+     */
+    public synchronized double getCoverage(int zoom, int x, int y) {
+        Tile tile = findTile(zoom, x, y);
+        if (tile == null) {
+            return 0;
+        }
+        return tile.nonEmptyBins / (double) (binsPerSide * binsPerSide);
+    }
+
+    /**
+     * 获取指定级别下有定位点的格子数量
+     * 这是格子个数而不是面积,墨卡托格子的地面面积随纬度变化,面积请用getCoveredArea
+     * @param zoom 缩放级别
+     * @return 非空格子数
+     */
+    public synchronized long getCoveredBins(int zoom) {
+        checkZoom(zoom);
+        long covered = 0;
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            if ((int) (entry.getKey() >>> 58) == zoom) {
+                covered += entry.getValue().nonEmptyBins;
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * 获取指定级别下有定位点的格子的地面面积之和
+     * 每个格子按其中心纬度的cos²缩放赤道处的格子面积
+     * @param zoom 缩放级别
+     * @return 覆盖面积(平方米)
+     */
+    public synchronized double getCoveredArea(int zoom) {
+        checkZoom(zoom);
+        double worldBins = (double) (1L << (zoom + binBits));
+        double side = EARTH_CIRCUMFERENCE / worldBins;
+        int mask = (1 << 29) - 1;
+        int[] bins = new int[binsPerSide * binsPerSide];
+        int[] counts = new int[binsPerSide * binsPerSide];
+        double area = 0;
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            long key = entry.getKey();
+            if ((int) (key >>> 58) != zoom) {
+                continue;
+            }
+            Tile tile = entry.getValue();
+            tile.entries(bins, counts);
+            long tileY = key & mask;
+            for (int i = 0; i < tile.nonEmptyBins; i++) {
+                long binY = (tileY << binBits) + bins[i] / binsPerSide;
+                double lat = Math.toRadians(mercatorYToLatitude((binY + 0.5) / worldBins));
+                double cos = Math.cos(lat);
+                area += side * side * cos * cos;
+            }
+        }
+        return area;
+    }
+
+    /**
+     * 获取指定级别下被触及的瓦片坐标
+     * @param zoom 缩放级别
+     * @return 瓦片坐标列表,每项为{x, y}
+     */
+    public synchronized List<int[]> getTiles(int zoom) {
+        checkZoom(zoom);
+        List<int[]> result = new ArrayList<>();
+        int mask = (1 << 29) - 1;
+        for (long key : tiles.keySet()) {
+            if ((int) (key >>> 58) == zoom) {
+                result.add(new int[] {(int) (key >>> 29) & mask, (int) key & mask});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 复制瓦片的格子计数
+     * @param zoom 缩放级别
+     * @param x 瓦片X坐标
+     * @param y 瓦片Y坐标
+     * @return 按行排列的计数数组,瓦片未被触及或坐标超出范围时返回null
+     */
+    public synchronized int[] getTileBins(int zoom, int x, int y) {
+        Tile tile = findTile(zoom, x, y);
+        return tile != null ? tile.toArray() : null;
+    }
+
+    /**
+     * 渲染瓦片热力图像素,按最近邻放大到指定边长,
+     * 可直接传给Bitmap.createBitmap(pixels, size, size, ARGB_8888)作为256像素的地图瓦片
+     * 颜色按对数比例从半透明蓝到不透明红渐变,空格子为全透明
+     * @param zoom 缩放级别
+     * @param x 瓦片X坐标
+     * @param y 瓦片Y坐标
+     * @param size 输出边长(像素)
+     * @return ARGB像素数组
+     */
+    public synchronized int[] renderTile(int zoom, int x, int y, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("输出尺寸无效: " + size);
+        }
+        int[] pixels = new int[size * size];
+        Tile tile = findTile(zoom, x, y);
+        if (tile == null || tile.maxBin == 0) {
+            return pixels;
+        }
+        int[] counts = tile.toArray();
+        int[] colors = new int[counts.length];
+        double logMax = Math.log1p(tile.maxBin);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            double t = Math.log1p(counts[i]) / logMax;
+            int alpha = 96 + (int) (159 * t);
+            int red = (int) (255 * t);
+            int blue = 255 - red;
+            colors[i] = (alpha << 24) | (red << 16) | blue;
+        }
+        for (int py = 0; py < size; py++) {
+            int row = (int) ((long) py * binsPerSide / size) * binsPerSide;
+            for (int px = 0; px < size; px++) {
+                pixels[py * size + px] = colors[row + (int) ((long) px * binsPerSide / size)];
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * 序列化到输出流,用于持久化或跨会话/设备合并,调用方负责关闭流
+     * @param out 输出流
+     * @throws IOException 写入失败
+     */
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(minZoom);
+        data.writeByte(maxZoom);
+        data.writeByte(binBits);
+        data.writeLong(totalFixes);
+        data.writeInt(tiles.size());
+        int[] bins = new int[binsPerSide * binsPerSide];
+        int[] counts = new int[binsPerSide * binsPerSide];
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            Tile tile = entry.getValue();
+            tile.entries(bins, counts);
+            data.writeLong(entry.getKey());
+            data.writeInt(tile.nonEmptyBins);
+            for (int i = 0; i < tile.nonEmptyBins; i++) {
+                data.writeShort(bins[i]);
+                data.writeInt(counts[i]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * 从输入流反序列化,调用方负责关闭流
+     * @param in 输入流
+     * @return 聚合器
+     * @throws IOException 读取失败或数据格式错误
+     */
+    public static GPSTileAggregator readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+            throw new IOException("不支持的瓦片聚合数据");
+        }
+        int minZoom = data.readUnsignedByte();
+        int maxZoom = data.readUnsignedByte();
+        int binBits = data.readUnsignedByte();
+        GPSTileAggregator aggregator;
+        try {
+            aggregator = new GPSTileAggregator(minZoom, maxZoom, binBits);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("瓦片聚合数据配置无效: " + e.getMessage());
+        }
+        int binCount = aggregator.binsPerSide * aggregator.binsPerSide;
+        int mask = (1 << 29) - 1;
+        aggregator.totalFixes = data.readLong();
+        if (aggregator.totalFixes < 0) {
+            throw new IOException("定位点总数无效: " + aggregator.totalFixes);
+        }
+        int tileCount = data.readInt();
+        for (int t = 0; t < tileCount; t++) {
+            long key = data.readLong();
+            int zoom = (int) (key >>> 58);
+            if (zoom < minZoom || zoom > maxZoom
+                    || !isValidTile(zoom, (int) (key >>> 29) & mask, (int) key & mask)
+                    || tileKey(zoom, (int) (key >>> 29) & mask, (int) key & mask) != key) {
+                throw new IOException("瓦片坐标无效: " + key);
+            }
+            int entries = data.readInt();
+            if (entries <= 0 || entries > binCount) {
+                throw new IOException("格子数量无效: " + entries);
+            }
+            Tile tile = aggregator.getOrCreateTile(key);
+            for (int i = 0; i < entries; i++) {
+                int bin = data.readUnsignedShort();
+                int count = data.readInt();
+                if (bin >= binCount || count <= 0) {
+                    throw new IOException("格子数据无效: " + bin + " = " + count);
+                }
+                tile.add(bin, count);
+            }
+        }
+        return aggregator;
+    }
+}
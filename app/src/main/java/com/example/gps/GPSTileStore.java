@@ -0,0 +1,95 @@
+package com.example.gps;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 瓦片聚合存储
+ * 在应用范围内持有唯一的瓦片聚合器,启动时从文件加载,停止定位时保存,
+ * 使覆盖统计跨Activity重建和应用重启保留
+ */
+public class GPSTileStore {
+
+    private static final String TAG = "GPSTileStore";
+
+    // 聚合数据文件名
+    private static final String FILE_NAME = "gps_tiles.bin";
+
+    private static GPSTileStore instance;
+
+    private final AtomicFile file;
+    private final GPSTileAggregator aggregator;
+
+    /**
+     * 获取应用范围的存储实例
+     * @param context 上下文
+     * @return 存储实例
+     */
+    public static synchronized GPSTileStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new GPSTileStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GPSTileStore(Context context) {
+        this.file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        this.aggregator = load();
+    }
+
+    /**
+     * 从文件加载聚合数据,文件不存在或损坏时返回空聚合器
+     */
+    private GPSTileAggregator load() {
+        if (!file.getBaseFile().exists()) {
+            return new GPSTileAggregator();
+        }
+        try (FileInputStream in = file.openRead()) {
+            GPSTileAggregator loaded = GPSTileAggregator.readFrom(new BufferedInputStream(in));
+            Log.d(TAG, "已加载瓦片聚合数据,定位点总数: " + loaded.getTotalFixes());
+            return loaded;
+        } catch (IOException e) {
+            Log.e(TAG, "加载瓦片聚合数据失败: " + e.getMessage(), e);
+            return new GPSTileAggregator();
+        }
+    }
+
+    /**
+     * 获取瓦片聚合器
+     * @return 聚合器
+     */
+    public GPSTileAggregator getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * 保存聚合数据到文件
+     * @return true表示保存成功,false表示保存失败
+     */
+    public synchronized boolean save() {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            BufferedOutputStream buffered = new BufferedOutputStream(out);
+            aggregator.writeTo(buffered);
+            buffered.flush();
+            file.finishWrite(out);
+            Log.d(TAG, "瓦片聚合数据已保存");
+            return true;
+        } catch (IOException e) {
+            if (out != null) {
+                file.failWrite(out);
+            }
+            Log.e(TAG, "保存瓦片聚合数据失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+}
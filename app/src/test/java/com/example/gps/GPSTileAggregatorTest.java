@@ -0,0 +1,325 @@
+package com.example.gps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * GPSTileAggregator的瓦片计算和合并测试
+ */
+public class GPSTileAggregatorTest {
+
+    private static final int MIN_ZOOM = 0;
+    private static final int MAX_ZOOM = 12;
+    private static final int BIN_BITS = 5;
+
+    @Test
+    public void tileCoordinatesMatchKnownValues() {
+        // {纬度, 经度, 缩放级别, x, y},参考值来自标准瓦片公式
+        double[][] cases = {
+            {39.9042, 116.4074, 1, 1, 0},
+            {39.9042, 116.4074, 10, 843, 388},
+            {39.9042, 116.4074, 15, 26979, 12416},
+            {51.5074, -0.1278, 5, 15, 10},
+            {51.5074, -0.1278, 10, 511, 340},
+            {-33.8688, 151.2093, 5, 29, 19},
+            {-33.8688, 151.2093, 15, 30147, 19663},
+            {40.7128, -74.0060, 10, 301, 385},
+            {0, 0, 0, 0, 0},
+            {0, 0, 1, 1, 1},
+        };
+        for (double[] c : cases) {
+            int zoom = (int) c[2];
+            assertEquals((int) c[3], GPSTileAggregator.longitudeToTileX(c[1], zoom));
+            assertEquals((int) c[4], GPSTileAggregator.latitudeToTileY(c[0], zoom));
+        }
+    }
+
+    @Test
+    public void tileCoordinatesClampAtWorldEdges() {
+        for (int zoom = 0; zoom <= GPSTileAggregator.MAX_ZOOM; zoom++) {
+            int last = (1 << zoom) - 1;
+            assertEquals(last, GPSTileAggregator.longitudeToTileX(180, zoom));
+            assertEquals(0, GPSTileAggregator.longitudeToTileX(-180, zoom));
+            assertEquals(0, GPSTileAggregator.latitudeToTileY(GPSTileAggregator.MAX_LATITUDE, zoom));
+            assertEquals(0, GPSTileAggregator.latitudeToTileY(90, zoom));
+            assertEquals(last, GPSTileAggregator.latitudeToTileY(-GPSTileAggregator.MAX_LATITUDE, zoom));
+            assertEquals(last, GPSTileAggregator.latitudeToTileY(-90, zoom));
+        }
+        // 85.0511略低于极限纬度,只在较低级别落在边缘瓦片
+        for (int zoom = 0; zoom <= 10; zoom++) {
+            assertEquals(0, GPSTileAggregator.latitudeToTileY(85.0511, zoom));
+            assertEquals((1 << zoom) - 1, GPSTileAggregator.latitudeToTileY(-85.0511, zoom));
+        }
+    }
+
+    @Test
+    public void tileEdgesRoundTrip() {
+        assertEquals(-180, GPSTileAggregator.tileXToLongitude(0, 10), 1e-9);
+        assertEquals(GPSTileAggregator.MAX_LATITUDE, GPSTileAggregator.tileYToLatitude(0, 10), 1e-6);
+        double north = GPSTileAggregator.tileYToLatitude(388, 10);
+        double south = GPSTileAggregator.tileYToLatitude(389, 10);
+        assertTrue(39.9042 <= north && 39.9042 > south);
+    }
+
+    @Test
+    public void shiftedBinsMatchDirectProjection() {
+        Random random = new Random(1);
+        for (int n = 0; n < 500; n++) {
+            double lat = random.nextDouble() * 170 - 85;
+            double lon = random.nextDouble() * 360 - 180;
+            long binX = GPSTileAggregator.longitudeToBinX(lon, MAX_ZOOM, BIN_BITS);
+            long binY = GPSTileAggregator.latitudeToBinY(lat, MAX_ZOOM, BIN_BITS);
+            for (int zoom = MIN_ZOOM; zoom < MAX_ZOOM; zoom++) {
+                int shift = MAX_ZOOM - zoom;
+                assertEquals(GPSTileAggregator.longitudeToBinX(lon, zoom, BIN_BITS), binX >> shift);
+                assertEquals(GPSTileAggregator.latitudeToBinY(lat, zoom, BIN_BITS), binY >> shift);
+            }
+        }
+    }
+
+    @Test
+    public void addFixCountsEveryZoom() {
+        GPSTileAggregator aggregator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        aggregator.addFix(39.9042, 116.4074);
+        aggregator.addFix(39.9042, 116.4074);
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            assertEquals(2, aggregator.getDensity(zoom, 39.9042, 116.4074));
+            int x = GPSTileAggregator.longitudeToTileX(116.4074, zoom);
+            int y = GPSTileAggregator.latitudeToTileY(39.9042, zoom);
+            assertEquals(2, aggregator.getTileFixes(zoom, x, y));
+            assertEquals(1, aggregator.getTiles(zoom).size());
+        }
+        assertEquals(2, aggregator.getTotalFixes());
+        assertEquals(MAX_ZOOM + 1, aggregator.getTileCount());
+    }
+
+    @Test
+    public void outOfRangeTileIsEmpty() {
+        GPSTileAggregator aggregator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        aggregator.addFix(10, -170);
+        assertEquals(1, aggregator.getTileFixes(0, 0, 0));
+        assertEquals(0, aggregator.getTileFixes(0, 1 << 29, 0));
+        assertEquals(0, aggregator.getTileFixes(1, 2, 0));
+        assertEquals(0, aggregator.getTileFixes(1, 0, -1));
+        assertEquals(0, aggregator.getCoverage(0, 1 << 29, 0), 0);
+        assertNull(aggregator.getTileBins(0, 1 << 29, 0));
+        assertArrayEquals(new int[16], aggregator.renderTile(0, 1 << 29, 0, 4));
+    }
+
+    @Test
+    public void invalidCoordinatesAreRejected() {
+        GPSTileAggregator aggregator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        double[][] invalid = {
+            {Double.NaN, 0},
+            {0, Double.NaN},
+            {Double.POSITIVE_INFINITY, 0},
+            {Double.NEGATIVE_INFINITY, 0},
+            {0, Double.POSITIVE_INFINITY},
+            {0, 1e300},
+            {90.5, 0},
+            {-90.5, 0},
+            {0, 180.5},
+            {0, -180.5},
+        };
+        for (double[] c : invalid) {
+            assertFalse(aggregator.addFix(c[0], c[1]));
+        }
+        assertEquals(0, aggregator.getTotalFixes());
+        assertEquals(0, aggregator.getTileCount());
+
+        assertTrue(aggregator.addFix(90, 180));
+        assertTrue(aggregator.addFix(-90, -180));
+        assertEquals(2, aggregator.getTotalFixes());
+    }
+
+    @Test
+    public void densityOfInvalidCoordinateIsZero() {
+        GPSTileAggregator aggregator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        // 北纬极限西经180落在(0,0)瓦片的西北角格子
+        aggregator.addFix(GPSTileAggregator.MAX_LATITUDE, -180);
+        assertEquals(1, aggregator.getDensity(0, GPSTileAggregator.MAX_LATITUDE, -180));
+        assertEquals(0, aggregator.getDensity(0, Double.NaN, Double.NaN));
+        assertEquals(0, aggregator.getDensity(0, Double.POSITIVE_INFINITY, -180));
+        assertEquals(0, aggregator.getDensity(0, 0, -1e300));
+    }
+
+    @Test
+    public void readFromRejectsEmptyTileRecord() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = header(out, 0);
+        data.writeInt(1);
+        data.writeLong(0);
+        data.writeInt(0);
+        assertMalformed(out.toByteArray());
+    }
+
+    @Test
+    public void readFromRejectsNegativeTotal() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = header(out, -1);
+        data.writeInt(0);
+        assertMalformed(out.toByteArray());
+    }
+
+    @Test
+    public void sparseAndDenseTilesAgree() {
+        // 全球随机点会使0级瓦片从稀疏转为稠密
+        GPSTileAggregator aggregator = new GPSTileAggregator(0, 0, BIN_BITS);
+        int side = 1 << BIN_BITS;
+        int[] expected = new int[side * side];
+        Random random = new Random(2);
+        for (int n = 0; n < 3000; n++) {
+            double lat = random.nextDouble() * 170 - 85;
+            double lon = random.nextDouble() * 360 - 180;
+            aggregator.addFix(lat, lon);
+            int x = (int) GPSTileAggregator.longitudeToBinX(lon, 0, BIN_BITS);
+            int y = (int) GPSTileAggregator.latitudeToBinY(lat, 0, BIN_BITS);
+            expected[y * side + x]++;
+        }
+        assertArrayEquals(expected, aggregator.getTileBins(0, 0, 0));
+        int nonEmpty = 0;
+        for (int count : expected) {
+            if (count != 0) {
+                nonEmpty++;
+            }
+        }
+        assertEquals(nonEmpty, aggregator.getCoveredBins(0));
+    }
+
+    @Test
+    public void mergeIsAssociative() throws IOException {
+        GPSTileAggregator left = build(1);
+        left.merge(build(2));
+        left.merge(build(3));
+
+        GPSTileAggregator right = build(2);
+        right.merge(build(3));
+        GPSTileAggregator a = build(1);
+        a.merge(right);
+
+        assertSameAggregate(left, a);
+        assertEquals(3 * 1500, a.getTotalFixes());
+    }
+
+    @Test
+    public void serialisationRoundTrips() throws IOException {
+        GPSTileAggregator aggregator = build(4);
+        assertSameAggregate(aggregator, copy(aggregator));
+    }
+
+    @Test
+    public void countsSaturate() throws IOException {
+        GPSTileAggregator aggregator = new GPSTileAggregator(0, 0, 0);
+        aggregator.addFix(0, 0);
+        // 每次与自身副本合并使计数翻倍,32次后超过int范围
+        for (int n = 0; n < 32; n++) {
+            aggregator.merge(copy(aggregator));
+        }
+        assertEquals(Integer.MAX_VALUE, aggregator.getDensity(0, 0, 0));
+        assertEquals(1L << 32, aggregator.getTotalFixes());
+        int[] pixels = aggregator.renderTile(0, 0, 0, 1);
+        assertEquals(0xFFFF0000, pixels[0]);
+    }
+
+    @Test
+    public void coveredAreaShrinksTowardsPoles() {
+        GPSTileAggregator equator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        equator.addFix(0.001, 0.001);
+        GPSTileAggregator north = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        north.addFix(60, 0.001);
+        double equatorArea = equator.getCoveredArea(MAX_ZOOM);
+        double northArea = north.getCoveredArea(MAX_ZOOM);
+        // 12级32x32格子在赤道处边长约305米
+        double side = 2 * Math.PI * 6378137.0 / (1 << (MAX_ZOOM + BIN_BITS));
+        assertEquals(side * side, equatorArea, side * side * 1e-3);
+        assertEquals(0.25, northArea / equatorArea, 1e-2);
+    }
+
+    @Test
+    public void renderUpsamplesToRequestedSize() {
+        GPSTileAggregator aggregator = new GPSTileAggregator(0, 0, 1);
+        aggregator.addFix(45, -90);
+        int[] pixels = aggregator.renderTile(0, 0, 0, 256);
+        assertEquals(256 * 256, pixels.length);
+        // 2x2格子的左上格子放大为128x128像素
+        assertTrue(pixels[0] != 0);
+        assertTrue(pixels[127 * 256 + 127] != 0);
+        assertEquals(0, pixels[127 * 256 + 128]);
+        assertEquals(0, pixels[128 * 256 + 127]);
+    }
+
+    private static GPSTileAggregator build(long seed) {
+        GPSTileAggregator aggregator = new GPSTileAggregator(MIN_ZOOM, MAX_ZOOM, BIN_BITS);
+        Random random = new Random(seed);
+        for (int n = 0; n < 1000; n++) {
+            aggregator.addFix(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180);
+        }
+        // 局部聚集的轨迹点
+        for (int n = 0; n < 500; n++) {
+            aggregator.addFix(39.9 + random.nextGaussian() * 0.05, 116.4 + random.nextGaussian() * 0.05);
+        }
+        return aggregator;
+    }
+
+    /**
+     * 写入与writeTo一致的文件头,缩放级别0-0,格子精度0
+     */
+    private static DataOutputStream header(ByteArrayOutputStream out, long totalFixes)
+            throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0x47505354);
+        data.writeByte(1);
+        data.writeByte(0);
+        data.writeByte(0);
+        data.writeByte(0);
+        data.writeLong(totalFixes);
+        return data;
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            GPSTileAggregator.readFrom(new ByteArrayInputStream(bytes));
+            fail("应拒绝格式错误的数据");
+        } catch (IOException expected) {
+            // 预期异常
+        }
+    }
+
+    private static GPSTileAggregator copy(GPSTileAggregator aggregator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        aggregator.writeTo(out);
+        return GPSTileAggregator.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertSameAggregate(GPSTileAggregator expected, GPSTileAggregator actual) {
+        assertEquals(expected.getTotalFixes(), actual.getTotalFixes());
+        assertEquals(expected.getTileCount(), actual.getTileCount());
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            List<int[]> tiles = new ArrayList<>(expected.getTiles(zoom));
+            assertEquals(tiles.size(), actual.getTiles(zoom).size());
+            for (int[] tile : tiles) {
+                int x = tile[0];
+                int y = tile[1];
+                assertArrayEquals(expected.getTileBins(zoom, x, y), actual.getTileBins(zoom, x, y));
+                assertEquals(expected.getTileFixes(zoom, x, y), actual.getTileFixes(zoom, x, y));
+                assertEquals(expected.getCoverage(zoom, x, y), actual.getCoverage(zoom, x, y), 0);
+                assertArrayEquals(expected.renderTile(zoom, x, y, 64), actual.renderTile(zoom, x, y, 64));
+            }
+            assertEquals(expected.getCoveredBins(zoom), actual.getCoveredBins(zoom));
+        }
+    }
+}